@@ -22,7 +22,9 @@
 package org.ireas.intuition;
 
 import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
@@ -56,10 +58,18 @@ public final class Intuition {
 
     private final ResourceBundle resourceBundle;
 
+    private final Map<String, String> constants;
+
     private final MessageFormat messageFormat;
 
     private Intuition(final ResourceBundle resourceBundle) {
         this.resourceBundle = resourceBundle;
+        if (resourceBundle instanceof IntuitionResourceBundle) {
+            constants =
+                    ((IntuitionResourceBundle) resourceBundle).getConstants();
+        } else {
+            constants = Collections.emptyMap();
+        }
         messageFormat = new MessageFormat("", resourceBundle.getLocale());
     }
 
@@ -118,6 +128,13 @@ public final class Intuition {
             Preconditions.checkNotNull(argument);
         }
 
+        if (arguments.length == 0) {
+            String constant = constants.get(key);
+            if (constant != null) {
+                return constant;
+            }
+        }
+
         String pattern = resourceBundle.getString(key);
         if (getArgumentsCount(pattern) != arguments.length) {
             throw new IllegalArgumentException();
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2014 Robin Krahl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ireas.intuition;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Caches the resource bundles created by the {@code IntuitionControl} class
+ * for all domains and languages.  The size of the cache is limited by the
+ * approximate count of bytes used by the messages of the cached bundles; if
+ * the limit is exceeded, the least recently used bundles are evicted.  If
+ * several threads request the same bundle at the same time, it is only
+ * loaded once.  The cached bundles never have a parent; {@code
+ * IntuitionControl} returns copies of them to {@code ResourceBundle}.
+ * <p>
+ * If a bundle cannot be loaded, the failure is cached for a short time so
+ * that an unavailable Intuition API is not queried again for every request.
+ * <p>
+ * Per default, the maximum weight of the cache is {@value
+ * #DEFAULT_MAXIMUM_WEIGHT} bytes, and failures are cached for {@value
+ * #DEFAULT_FAILURE_TIME_TO_LIVE} seconds.  To change these values, call
+ * {@link #setMaximumWeight(long)} and {@link
+ * #setFailureTimeToLive(long)}.
+ *
+ * @author ireas
+ */
+public final class IntuitionCache {
+
+    /**
+     * The default maximum weight of the cache in bytes.
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 16 * 1024 * 1024;
+
+    /**
+     * The default time in seconds for which failed loads are cached.
+     */
+    public static final long DEFAULT_FAILURE_TIME_TO_LIVE = 30;
+
+    private static final class Key {
+
+        private final String baseName;
+
+        private final String language;
+
+        private Key(final String baseName, final String language) {
+            this.baseName = baseName;
+            this.language = language;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return baseName.equals(key.baseName)
+                    && language.equals(key.language);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(baseName, language);
+        }
+
+    }
+
+    private static final class BundleWeigher implements
+            Weigher<Key, Optional<IntuitionResourceBundle>> {
+
+        @Override
+        public int weigh(final Key key,
+                final Optional<IntuitionResourceBundle> value) {
+            int weight = 1;
+            if (value.isPresent()) {
+                weight = value.get().getWeight();
+            }
+            return weight;
+        }
+
+    }
+
+    private static long maximumWeight = DEFAULT_MAXIMUM_WEIGHT;
+
+    private static Cache<Key, Optional<IntuitionResourceBundle>> cache =
+            createCache(DEFAULT_MAXIMUM_WEIGHT);
+
+    private static long failureTimeToLive = DEFAULT_FAILURE_TIME_TO_LIVE;
+
+    private static Cache<Key, IOException> failures =
+            createFailureCache(DEFAULT_FAILURE_TIME_TO_LIVE);
+
+    private static Cache<Key, Optional<IntuitionResourceBundle>> createCache(
+            final long maximumWeight) {
+        // a single segment, as Guava splits the maximum weight among the
+        // segments and would evict bundles larger than one share at once
+        return CacheBuilder.newBuilder().concurrencyLevel(1)
+                .maximumWeight(maximumWeight).weigher(new BundleWeigher())
+                .recordStats().build();
+    }
+
+    private static Cache<Key, IOException> createFailureCache(
+            final long failureTimeToLive) {
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(failureTimeToLive, TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * Returns the resource bundle for the specified domain and language.  If
+     * the bundle is not cached, it is loaded using the specified loader and
+     * added to the cache.  An absent value means that the domain does not
+     * exist; this result is cached too.  As the Intuition API only
+     * distinguishes languages, all locales with the same language share one
+     * bundle.
+     *
+     * @param baseName the domain of the bundle
+     * @param language the language code of the bundle, or an empty string
+     *        for the root bundle
+     * @param loader the loader to use if the bundle is not cached
+     * @return the cached or loaded bundle, or an absent value if the domain
+     *         does not exist
+     * @throws IOException if the loader throws an exception or has thrown an
+     *         exception within the failure time to live
+     */
+    static Optional<IntuitionResourceBundle> get(final String baseName,
+            final String language,
+            final Callable<Optional<IntuitionResourceBundle>> loader)
+            throws IOException {
+        Preconditions.checkNotNull(baseName);
+        Preconditions.checkNotNull(language);
+        Preconditions.checkNotNull(loader);
+
+        Key key = new Key(baseName, language);
+        IOException failure = getFailures().getIfPresent(key);
+        if (failure != null) {
+            throw new IOException("Loading failed recently", failure);
+        }
+
+        try {
+            return getCache().get(key, loader);
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException) {
+                failure = (IOException) cause;
+            } else {
+                failure = new IOException(cause);
+            }
+            getFailures().put(key, failure);
+            throw failure;
+        } catch (UncheckedExecutionException exception) {
+            throw Throwables.propagate(exception.getCause());
+        }
+    }
+
+    /**
+     * Stores the specified resource bundle for the specified domain and
+     * language in the cache, replacing a previously cached bundle.
+     *
+     * @param baseName the domain of the bundle
+     * @param language the language code of the bundle, or an empty string
+     *        for the root bundle
+     * @param bundle the bundle to cache, or an absent value if the domain
+     *        does not exist
+     */
+    static void put(final String baseName, final String language,
+            final Optional<IntuitionResourceBundle> bundle) {
+        Preconditions.checkNotNull(baseName);
+        Preconditions.checkNotNull(language);
+        Preconditions.checkNotNull(bundle);
+
+        getCache().put(new Key(baseName, language), bundle);
+    }
+
+    private static synchronized Cache<Key, Optional<IntuitionResourceBundle>>
+            getCache() {
+        return cache;
+    }
+
+    private static synchronized Cache<Key, IOException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the maximum weight of the cache, that is the approximate count
+     * of bytes the messages of all cached bundles may use.
+     *
+     * @return the maximum weight of the cache in bytes
+     */
+    public static synchronized long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Sets the maximum weight of the cache, that is the approximate count of
+     * bytes the messages of all cached bundles may use, to the specified
+     * value.  All cached bundles are discarded, and the statistics are
+     * reset.
+     *
+     * @param maximumWeight the new maximum weight of the cache in bytes
+     * @throws IllegalArgumentException if the specified weight is negative
+     */
+    public static synchronized void setMaximumWeight(final long maximumWeight) {
+        Preconditions.checkArgument(maximumWeight >= 0);
+
+        cache.invalidateAll();
+        cache = createCache(maximumWeight);
+        IntuitionCache.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Returns the time in seconds for which failed loads are cached.  During
+     * this time, requests for the bundle fail without calling the loader
+     * again.
+     *
+     * @return the time to live of cached failures in seconds
+     */
+    public static synchronized long getFailureTimeToLive() {
+        return failureTimeToLive;
+    }
+
+    /**
+     * Sets the time in seconds for which failed loads are cached to the
+     * specified value.  A value of zero disables caching failures.  All
+     * cached failures are discarded.
+     *
+     * @param failureTimeToLive the new time to live of cached failures in
+     *        seconds
+     * @throws IllegalArgumentException if the specified time is negative
+     */
+    public static synchronized void setFailureTimeToLive(
+            final long failureTimeToLive) {
+        Preconditions.checkArgument(failureTimeToLive >= 0);
+
+        failures.invalidateAll();
+        failures = createFailureCache(failureTimeToLive);
+        IntuitionCache.failureTimeToLive = failureTimeToLive;
+    }
+
+    /**
+     * Returns the statistics of the cache, including the counts of hits,
+     * misses and evictions.
+     *
+     * @return the current statistics of the cache
+     */
+    public static CacheStats getStats() {
+        return getCache().stats();
+    }
+
+    /**
+     * Returns the count of bundles currently held in the cache.  This
+     * includes the domains that are known not to exist.
+     *
+     * @return the approximate count of cached bundles
+     */
+    public static long size() {
+        return getCache().size();
+    }
+
+    /**
+     * Discards all cached bundles and failures.  The next request for a
+     * bundle loads it again.
+     */
+    public static void invalidateAll() {
+        getCache().invalidateAll();
+        getFailures().invalidateAll();
+    }
+
+    private IntuitionCache() {
+        // static class
+    }
+
+}
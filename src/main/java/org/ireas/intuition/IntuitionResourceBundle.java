@@ -23,18 +23,23 @@
 package org.ireas.intuition;
 
 import java.io.IOException;
+import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 
 /**
  * Resource bundle parsing the result of an Intuition API request.  To create
@@ -50,8 +55,11 @@ public final class IntuitionResourceBundle extends ResourceBundle {
      * Provides callback methods for the {@code ResourceBundle.getBundle}
      * factory methods so that an {@code IntuitionResourceBundle} can be
      * created.  To initialize the resource bundle, an API request is performed
-     * using the {@code IntuitionLoader} class.  For easy access to Intuition
-     * messages, use the {@code Intuition} class.
+     * using the {@code IntuitionLoader} class, unless the bundle is contained
+     * in an {@code IntuitionSnapshot} on the class path.  The loaded bundles
+     * are kept in the {@code IntuitionCache} instead of the cache of {@code
+     * ResourceBundle}.  For easy access to Intuition messages, use the {@code
+     * Intuition} class.
      *
      * @author ireas
      */
@@ -69,6 +77,14 @@ public final class IntuitionResourceBundle extends ResourceBundle {
             return Arrays.asList(INTUITION_JSON_FORMAT);
         }
 
+        @Override
+        public long getTimeToLive(final String baseName, final Locale locale) {
+            Preconditions.checkNotNull(baseName);
+            Preconditions.checkNotNull(locale);
+            // bundles are cached by IntuitionCache
+            return TTL_DONT_CACHE;
+        }
+
         @Override
         @Nullable
         public ResourceBundle newBundle(final String baseName,
@@ -84,16 +100,68 @@ public final class IntuitionResourceBundle extends ResourceBundle {
             ResourceBundle resourceBundle = null;
 
             if (format.equals(INTUITION_JSON_FORMAT)) {
-                IntuitionLoader intuitionLoader =
-                        new IntuitionLoader(baseName, locale.getLanguage());
-                Optional<Map<String, String>> messages =
-                        intuitionLoader.loadMessages();
-                if (messages.isPresent()) {
-                    resourceBundle =
-                            new IntuitionResourceBundle(messages.get());
+                // the Intuition API only distinguishes languages, so all
+                // locales with the same language share one cached bundle
+                final String language = locale.getLanguage();
+                Callable<Optional<IntuitionResourceBundle>> bundleLoader =
+                        new Callable<Optional<IntuitionResourceBundle>>() {
+                            @Override
+                            public Optional<IntuitionResourceBundle> call()
+                                    throws IOException {
+                                return loadBundle(baseName, language,
+                                        loader);
+                            }
+                        };
+                Optional<IntuitionResourceBundle> cachedBundle =
+                        IntuitionCache.get(baseName, language, bundleLoader);
+                if (cachedBundle.isPresent()) {
+                    // ResourceBundle sets the parent of the returned bundle,
+                    // so the cached bundle must not be handed out
+                    resourceBundle = cachedBundle.get().copy();
+                }
+            }
+
+            return resourceBundle;
+        }
+
+        private static Optional<IntuitionResourceBundle> loadBundle(
+                final String baseName, final String language,
+                final ClassLoader loader) throws IOException {
+            Optional<IntuitionResourceBundle> resourceBundle =
+                    IntuitionSnapshot.load(loader, baseName, language);
+            if (resourceBundle.isPresent()) {
+                if (IntuitionSnapshot.isBackgroundUpdate()) {
+                    IntuitionSnapshot.scheduleUpdate(baseName, language);
                 }
+            } else {
+                resourceBundle = load(baseName, language);
             }
+            return resourceBundle;
+        }
 
+        /**
+         * Loads the bundle for the specified domain and language from the
+         * Intuition API, bypassing the snapshot and the cache.
+         *
+         * @param baseName the domain to load the bundle for
+         * @param language the language code to load the bundle for
+         * @return the loaded bundle or an absent value if the domain does not
+         *         exist
+         * @throws IOException if an error occurs during the request
+         */
+        static Optional<IntuitionResourceBundle> load(final String baseName,
+                final String language) throws IOException {
+            Optional<IntuitionResourceBundle> resourceBundle =
+                    Optional.absent();
+            IntuitionLoader intuitionLoader =
+                    new IntuitionLoader(baseName, language);
+            Optional<Map<String, String>> messages =
+                    intuitionLoader.loadMessages();
+            if (messages.isPresent()) {
+                resourceBundle =
+                        Optional.of(new IntuitionResourceBundle(
+                                messages.get()));
+            }
             return resourceBundle;
         }
 
@@ -101,6 +169,10 @@ public final class IntuitionResourceBundle extends ResourceBundle {
 
     private final Map<String, String> data;
 
+    private final Map<String, String> constants;
+
+    private final int weight;
+
     /**
      * Constructs a new Intuition resource bundle using the specified map as
      * messages.  The map must contain the messages as returned by the
@@ -111,8 +183,144 @@ public final class IntuitionResourceBundle extends ResourceBundle {
      * @throws NullPointerException if the specified data map is null
      */
     public IntuitionResourceBundle(final Map<String, String> data) {
+        this(convertPatterns(data));
+    }
+
+    private IntuitionResourceBundle(
+            final ImmutableMap<String, String> patterns) {
+        this(patterns, createConstants(patterns));
+    }
+
+    /**
+     * Constructs a new Intuition resource bundle using the specified
+     * preprocessed messages.  In contrast to the public constructor, the
+     * messages must already be converted to {@code MessageFormat} patterns,
+     * and the constants must contain the preformatted messages without
+     * arguments, as returned by {@link #getPatterns()} and {@link
+     * #getConstants()} of another bundle.
+     *
+     * @param patterns the message patterns to use in this bundle
+     * @param constants the preformatted messages without arguments
+     * @throws NullPointerException if one of the specified maps is null
+     */
+    IntuitionResourceBundle(final ImmutableMap<String, String> patterns,
+            final ImmutableMap<String, String> constants) {
+        data = Preconditions.checkNotNull(patterns);
+        this.constants = Preconditions.checkNotNull(constants);
+        weight = computeWeight(data, constants);
+    }
+
+    private IntuitionResourceBundle(final IntuitionResourceBundle bundle) {
+        data = bundle.data;
+        constants = bundle.constants;
+        weight = bundle.weight;
+    }
+
+    /**
+     * Returns a new Intuition resource bundle that shares the messages of
+     * this bundle, but not its parent and its locale.
+     *
+     * @return a copy of this bundle without a parent
+     */
+    IntuitionResourceBundle copy() {
+        return new IntuitionResourceBundle(this);
+    }
+
+    private static ImmutableMap<String, String> convertPatterns(
+            final Map<String, String> data) {
         Preconditions.checkNotNull(data);
-        this.data = data;
+
+        ImmutableMap.Builder<String, String> patterns = ImmutableMap.builder();
+        for (Entry<String, String> entry : data.entrySet()) {
+            patterns.put(entry.getKey(), handleValue(entry.getValue()));
+        }
+        return patterns.build();
+    }
+
+    private static int computeWeight(final Map<String, String> patterns,
+            final Map<String, String> constants) {
+        // two bytes per char, the constants share their keys with the
+        // patterns, and their values too if formatting did not change them
+        long chars = 0;
+        for (Entry<String, String> entry : patterns.entrySet()) {
+            chars += entry.getKey().length() + entry.getValue().length();
+        }
+        for (Entry<String, String> entry : constants.entrySet()) {
+            String constant = entry.getValue();
+            if (constant != patterns.get(entry.getKey())) {
+                chars += constant.length();
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, 2 * chars + 1);
+    }
+
+    private static ImmutableMap<String, String> createConstants(
+            final Map<String, String> patterns) {
+        // messages without arguments are formatted once so that Intuition
+        // can return them without running a MessageFormat for every request
+        ImmutableMap.Builder<String, String> constants = ImmutableMap.builder();
+        Object[] noArguments = new Object[0];
+        for (Entry<String, String> entry : patterns.entrySet()) {
+            String pattern = entry.getValue();
+            if (pattern.indexOf('\'') < 0 && pattern.indexOf('{') < 0) {
+                // nothing to unescape
+                constants.put(entry.getKey(), pattern);
+            } else if (!pattern.contains("{0}")) {
+                try {
+                    MessageFormat messageFormat =
+                            new MessageFormat(pattern, Locale.ROOT);
+                    String constant = messageFormat.format(noArguments);
+                    if (constant.equals(pattern)) {
+                        // share the pattern instead of keeping a copy
+                        constant = pattern;
+                    }
+                    constants.put(entry.getKey(), constant);
+                } catch (IllegalArgumentException exception) {
+                    // invalid pattern -- leave the error to Intuition.get
+                }
+            }
+        }
+        return constants.build();
+    }
+
+    /**
+     * Returns the preformatted messages that do not take any arguments,
+     * including those inherited from Intuition parent bundles.  The values
+     * are the results of formatting the message patterns with an empty
+     * argument list.
+     *
+     * @return a map from message keys to preformatted messages
+     */
+    Map<String, String> getConstants() {
+        if (!(parent instanceof IntuitionResourceBundle)) {
+            return constants;
+        }
+        Map<String, String> allConstants = new HashMap<>(
+                ((IntuitionResourceBundle) parent).getConstants());
+        allConstants.keySet().removeAll(data.keySet());
+        allConstants.putAll(constants);
+        return allConstants;
+    }
+
+    /**
+     * Returns the messages of this bundle converted to {@code MessageFormat}
+     * patterns, without the messages inherited from parent bundles.
+     *
+     * @return a map from message keys to message patterns
+     */
+    Map<String, String> getPatterns() {
+        return data;
+    }
+
+    /**
+     * Returns the approximate count of bytes used by the messages in this
+     * bundle.  This is used as the weight of the bundle in the {@link
+     * IntuitionCache}.
+     *
+     * @return the approximate size of this bundle in bytes
+     */
+    int getWeight() {
+        return weight;
     }
 
     @Override
@@ -124,14 +332,10 @@ public final class IntuitionResourceBundle extends ResourceBundle {
     @Nullable
     protected Object handleGetObject(final String key) {
         Preconditions.checkNotNull(key);
-        String value = data.get(key);
-        if (value != null) {
-            value = handleValue(value);
-        }
-        return value;
+        return data.get(key);
     }
 
-    private String handleValue(final String value) {
+    private static String handleValue(final String value) {
         Preconditions.checkNotNull(value);
 
         String newValue = value;
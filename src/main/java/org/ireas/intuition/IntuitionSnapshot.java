@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2014 Robin Krahl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ireas.intuition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.ireas.intuition.IntuitionResourceBundle.IntuitionControl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads and writes snapshots of Intuition resource bundles.  A snapshot
+ * contains the messages of one domain in one language, already converted to
+ * {@code MessageFormat} patterns, and the preformatted messages without
+ * arguments in a compact binary format.  If a snapshot
+ * for a domain and a language is found on the class path at {@link
+ * #RESOURCE_PATH}, {@code IntuitionControl} uses it instead of performing a
+ * request to the Intuition API.  The root bundle of a domain, which is the
+ * parent of all its language bundles, is stored as the language {@value
+ * #ROOT_NAME}.
+ * <p>
+ * Snapshots are created at build time by running the {@link #main(String[])
+ * main} method of this class, for example using the {@code
+ * intuitionSnapshot} Gradle task.  Optionally, bundles loaded from a snapshot
+ * can be updated from the Intuition API in the background; to enable this,
+ * call {@link #setBackgroundUpdate(boolean)}.
+ *
+ * @author ireas
+ */
+public final class IntuitionSnapshot {
+
+    /**
+     * The path of the snapshot resources.  This path will be formatted using
+     * the domain and the language of the messages.
+     */
+    public static final String RESOURCE_PATH =
+            "org/ireas/intuition/snapshot/%s/%s.messages";
+
+    /**
+     * The name used instead of the empty language code in the path of the
+     * snapshot for the root bundle.
+     */
+    public static final String ROOT_NAME = "root";
+
+    private static final int MAGIC = 0x494e5432;
+
+    private static final int NO_CONSTANT = 0;
+
+    private static final int PATTERN_CONSTANT = 1;
+
+    private static final int FORMATTED_CONSTANT = 2;
+
+    private static final String USAGE =
+            "Usage: IntuitionSnapshot <output directory> <domains> "
+                    + "<languages> [<Intuition URL>]";
+
+    private static final Splitter LIST_SPLITTER = Splitter.on(',')
+            .trimResults().omitEmptyStrings();
+
+    private static volatile boolean backgroundUpdate = false;
+
+    private static ExecutorService updateExecutor;
+
+    /**
+     * Returns whether bundles loaded from a snapshot are updated from the
+     * Intuition API in the background.  Per default, this is disabled.
+     *
+     * @return true if bundles loaded from a snapshot are updated in the
+     *         background
+     */
+    public static boolean isBackgroundUpdate() {
+        return backgroundUpdate;
+    }
+
+    /**
+     * Sets whether bundles loaded from a snapshot are updated from the
+     * Intuition API in the background.  If enabled, a request to the
+     * Intuition API is performed after a bundle has been loaded from a
+     * snapshot, and the updated bundle replaces the snapshot bundle in the
+     * {@code IntuitionCache}.  Intuition instances created before the update
+     * has finished keep using the snapshot bundle.
+     *
+     * @param backgroundUpdate true if bundles loaded from a snapshot should
+     *        be updated in the background
+     */
+    public static void setBackgroundUpdate(final boolean backgroundUpdate) {
+        IntuitionSnapshot.backgroundUpdate = backgroundUpdate;
+    }
+
+    /**
+     * Loads the snapshot for the specified domain and language from the
+     * specified class loader.  If no snapshot is available, an absent value
+     * is returned.
+     *
+     * @param loader the class loader to load the snapshot from
+     * @param domain the domain to get the messages for
+     * @param language the language code to get the messages for, or an empty
+     *        string for the root bundle
+     * @return the bundle read from the snapshot or an absent value if there
+     *         is no snapshot for the specified domain and language
+     * @throws IOException if the snapshot cannot be read
+     */
+    static Optional<IntuitionResourceBundle> load(final ClassLoader loader,
+            final String domain, final String language) throws IOException {
+        Preconditions.checkNotNull(loader);
+        Preconditions.checkNotNull(domain);
+        Preconditions.checkNotNull(language);
+
+        Optional<IntuitionResourceBundle> bundle = Optional.absent();
+        InputStream inputStream =
+                loader.getResourceAsStream(getPath(domain, language));
+        if (inputStream != null) {
+            try {
+                bundle = Optional.of(read(inputStream));
+            } finally {
+                inputStream.close();
+            }
+        }
+        return bundle;
+    }
+
+    private static String getPath(final String domain, final String language) {
+        String name = language;
+        if (language.isEmpty()) {
+            name = ROOT_NAME;
+        }
+        return String.format(RESOURCE_PATH, domain, name);
+    }
+
+    /**
+     * Reads a snapshot from the specified stream.
+     *
+     * @param inputStream the stream to read the snapshot from
+     * @return the bundle containing the messages of the snapshot
+     * @throws IOException if the snapshot cannot be read or is invalid
+     */
+    static IntuitionResourceBundle read(final InputStream inputStream)
+            throws IOException {
+        Preconditions.checkNotNull(inputStream);
+
+        DataInputStream dataStream =
+                new DataInputStream(new BufferedInputStream(inputStream));
+        if (dataStream.readInt() != MAGIC) {
+            throw new IOException("Invalid Intuition snapshot");
+        }
+        int count = dataStream.readInt();
+        ImmutableMap.Builder<String, String> patterns = ImmutableMap.builder();
+        ImmutableMap.Builder<String, String> constants =
+                ImmutableMap.builder();
+        for (int i = 0; i < count; i++) {
+            String key = readString(dataStream);
+            String pattern = readString(dataStream);
+            patterns.put(key, pattern);
+            switch (dataStream.readByte()) {
+            case NO_CONSTANT:
+                break;
+            case PATTERN_CONSTANT:
+                constants.put(key, pattern);
+                break;
+            case FORMATTED_CONSTANT:
+                constants.put(key, readString(dataStream));
+                break;
+            default:
+                throw new IOException("Invalid Intuition snapshot");
+            }
+        }
+        return new IntuitionResourceBundle(patterns.build(),
+                constants.build());
+    }
+
+    private static String readString(final DataInputStream dataStream)
+            throws IOException {
+        int length = dataStream.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid Intuition snapshot");
+        }
+        byte[] bytes = new byte[length];
+        dataStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the messages of the specified bundle as a snapshot to the
+     * specified stream.  Messages inherited from parent bundles are not
+     * written.
+     *
+     * @param bundle the bundle to write
+     * @param outputStream the stream to write the snapshot to
+     * @throws IOException if the snapshot cannot be written
+     */
+    static void write(final IntuitionResourceBundle bundle,
+            final OutputStream outputStream) throws IOException {
+        Preconditions.checkNotNull(bundle);
+        Preconditions.checkNotNull(outputStream);
+
+        DataOutputStream dataStream =
+                new DataOutputStream(new BufferedOutputStream(outputStream));
+        Map<String, String> patterns = bundle.getPatterns();
+        // the copy has no parent, so these are only the own constants
+        Map<String, String> constants = bundle.copy().getConstants();
+        dataStream.writeInt(MAGIC);
+        dataStream.writeInt(patterns.size());
+        for (Entry<String, String> entry : patterns.entrySet()) {
+            String pattern = entry.getValue();
+            String constant = constants.get(entry.getKey());
+            writeString(dataStream, entry.getKey());
+            writeString(dataStream, pattern);
+            if (constant == null) {
+                dataStream.writeByte(NO_CONSTANT);
+            } else if (constant.equals(pattern)) {
+                dataStream.writeByte(PATTERN_CONSTANT);
+            } else {
+                dataStream.writeByte(FORMATTED_CONSTANT);
+                writeString(dataStream, constant);
+            }
+        }
+        dataStream.flush();
+    }
+
+    private static void writeString(final DataOutputStream dataStream,
+            final String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        dataStream.writeInt(bytes.length);
+        dataStream.write(bytes);
+    }
+
+    /**
+     * Loads the bundle for the specified domain and language from the
+     * Intuition API in the background and stores it in the {@code
+     * IntuitionCache}.  If the request fails, the cached bundle is kept.
+     *
+     * @param domain the domain to update
+     * @param language the language code to update
+     */
+    static void scheduleUpdate(final String domain, final String language) {
+        Preconditions.checkNotNull(domain);
+        Preconditions.checkNotNull(language);
+
+        getUpdateExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Optional<IntuitionResourceBundle> bundle =
+                            IntuitionControl.load(domain, language);
+                    if (bundle.isPresent()) {
+                        IntuitionCache.put(domain, language, bundle);
+                    }
+                } catch (IOException | IllegalArgumentException exception) {
+                    // keep the snapshot bundle
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getUpdateExecutor() {
+        if (updateExecutor == null) {
+            updateExecutor =
+                    Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                            .setNameFormat("intuition-snapshot-update")
+                            .setDaemon(true).build());
+        }
+        return updateExecutor;
+    }
+
+    /**
+     * Loads the messages for the specified domains and languages from the
+     * Intuition API and writes them as snapshots to the specified output
+     * directory.  The root bundles of the domains are always written too.
+     * The arguments are the output directory, a comma-separated list of
+     * domains, a comma-separated list of languages and, optionally,
+     * the URL of the Intuition API as described in {@link
+     * IntuitionLoader#setIntuitionUrl(String)}, for example to use a local
+     * Intuition installation.
+     *
+     * @param args the command line arguments
+     * @throws IOException if an error occurs during a request or while
+     *         writing a snapshot
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        File outputDirectory = new File(args[0]);
+        List<String> domains = LIST_SPLITTER.splitToList(args[1]);
+        List<String> languages = new ArrayList<>();
+        languages.add("");
+        languages.addAll(LIST_SPLITTER.splitToList(args[2]));
+        if (args.length == 4) {
+            IntuitionLoader.setIntuitionUrl(args[3]);
+        }
+
+        for (String domain : domains) {
+            for (String language : languages) {
+                Optional<IntuitionResourceBundle> bundle =
+                        IntuitionControl.load(domain, language);
+                if (!bundle.isPresent()) {
+                    System.err.println("Unknown domain: " + domain);
+                    System.exit(1);
+                }
+                writeSnapshot(outputDirectory, domain, language, bundle.get());
+            }
+        }
+    }
+
+    private static void writeSnapshot(final File outputDirectory,
+            final String domain, final String language,
+            final IntuitionResourceBundle bundle) throws IOException {
+        File file = new File(outputDirectory, getPath(domain, language));
+        Files.createParentDirs(file);
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            write(bundle, outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private IntuitionSnapshot() {
+        // static class
+    }
+
+}
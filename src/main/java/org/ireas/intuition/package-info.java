@@ -25,8 +25,11 @@
  * Intuition messages, use the {@code Intuition} class.  This package also
  * contains {@code IntuitionResourceBundle}, a resource bundle implementation
  * that converts messages returned by the Intuition API to Java messages that
- * can be handled by {@code MessageFormat}, and {@code IntuitionLoader}, a
- * class performing requests to the Intuition API.
+ * can be handled by {@code MessageFormat}, {@code IntuitionLoader}, a
+ * class performing requests to the Intuition API, {@code IntuitionCache}, a
+ * size-limited cache holding the loaded resource bundles, and {@code
+ * IntuitionSnapshot}, a class reading and writing pre-generated bundles that
+ * are packaged with the application.
  * <p>
  * A simple example of the Intuition API is:
  * <pre>
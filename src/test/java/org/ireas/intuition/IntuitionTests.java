@@ -22,18 +22,204 @@
 
 package org.ireas.intuition;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.text.MessageFormat;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ireas.intuition.IntuitionResourceBundle.IntuitionControl;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
 
 public class IntuitionTests {
 
     private static final String PB_GROUP = "pb";
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCache() throws Exception {
+        final AtomicInteger loadCount = new AtomicInteger();
+        Callable<Optional<IntuitionResourceBundle>> loader =
+                new Callable<Optional<IntuitionResourceBundle>>() {
+                    @Override
+                    public Optional<IntuitionResourceBundle> call() {
+                        loadCount.incrementAndGet();
+                        Map<String, String> data = new HashMap<>();
+                        data.put("key", "value");
+                        return Optional.of(new IntuitionResourceBundle(data));
+                    }
+                };
+        IntuitionCache.invalidateAll();
+        long hitCount = IntuitionCache.getStats().hitCount();
+        IntuitionResourceBundle bundle =
+                IntuitionCache.get("cache-test", "en", loader).get();
+        Assert.assertSame(bundle,
+                IntuitionCache.get("cache-test", "en", loader).get());
+        Assert.assertEquals(loadCount.get(), 1);
+        Assert.assertEquals(IntuitionCache.getStats().hitCount(),
+                hitCount + 1);
+    }
+
+    @Test
+    public void testCacheCopies() throws Exception {
+        Map<String, String> data = new HashMap<>();
+        data.put("key", "value");
+        IntuitionResourceBundle cachedBundle =
+                new IntuitionResourceBundle(data);
+        IntuitionCache.put("copy-test", "en",
+                Optional.of(cachedBundle));
+        IntuitionCache.put("copy-test", "",
+                Optional.<IntuitionResourceBundle>absent());
+        ResourceBundle bundle =
+                ResourceBundle.getBundle("copy-test", Locale.ENGLISH,
+                        getClass().getClassLoader(), new IntuitionControl());
+        Assert.assertNotSame(bundle, cachedBundle);
+        Assert.assertNotSame(bundle,
+                ResourceBundle.getBundle("copy-test", Locale.ENGLISH,
+                        getClass().getClassLoader(), new IntuitionControl()));
+        Assert.assertEquals(bundle.getString("key"), "value");
+        Assert.assertEquals(ResourceBundle.getBundle("copy-test", Locale.UK,
+                getClass().getClassLoader(), new IntuitionControl())
+                .getString("key"), "value");
+        Assert.assertEquals(((IntuitionResourceBundle) bundle).getConstants(),
+                cachedBundle.getConstants());
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+        final AtomicInteger loadCount = new AtomicInteger();
+        Callable<Optional<IntuitionResourceBundle>> loader =
+                new Callable<Optional<IntuitionResourceBundle>>() {
+                    @Override
+                    public Optional<IntuitionResourceBundle> call() {
+                        loadCount.incrementAndGet();
+                        Map<String, String> data = new HashMap<>();
+                        data.put("key", Strings.repeat("x", 1000));
+                        return Optional.of(new IntuitionResourceBundle(data));
+                    }
+                };
+        long bundleWeight = loader.call().get().getWeight();
+        loadCount.set(0);
+        try {
+            // more than a quarter of the maximum weight per bundle
+            IntuitionCache.setMaximumWeight(bundleWeight * 5 / 2);
+            IntuitionCache.get("eviction-test", "de", loader);
+            IntuitionCache.get("eviction-test", "en", loader);
+            IntuitionCache.get("eviction-test", "de", loader);
+            Assert.assertEquals(loadCount.get(), 2);
+            Assert.assertEquals(IntuitionCache.getStats().evictionCount(), 0);
+            Assert.assertEquals(IntuitionCache.size(), 2);
+
+            // en is the least recently used bundle
+            IntuitionCache.get("eviction-test", "fr", loader);
+            Assert.assertEquals(IntuitionCache.getStats().evictionCount(), 1);
+            Assert.assertEquals(IntuitionCache.size(), 2);
+            IntuitionCache.get("eviction-test", "de", loader);
+            IntuitionCache.get("eviction-test", "fr", loader);
+            Assert.assertEquals(loadCount.get(), 3);
+            IntuitionCache.get("eviction-test", "en", loader);
+            Assert.assertEquals(loadCount.get(), 4);
+        } finally {
+            IntuitionCache
+                    .setMaximumWeight(IntuitionCache.DEFAULT_MAXIMUM_WEIGHT);
+        }
+    }
+
+    @Test
+    public void testCacheFailure() throws Exception {
+        final AtomicInteger loadCount = new AtomicInteger();
+        Callable<Optional<IntuitionResourceBundle>> loader =
+                new Callable<Optional<IntuitionResourceBundle>>() {
+                    @Override
+                    public Optional<IntuitionResourceBundle> call()
+                            throws IOException {
+                        loadCount.incrementAndGet();
+                        throw new IOException("failure-test");
+                    }
+                };
+        for (int i = 0; i < 3; i++) {
+            try {
+                IntuitionCache.get("failure-test", "en", loader);
+                Assert.fail();
+            } catch (IOException exception) {
+                // expected
+            }
+        }
+        Assert.assertEquals(loadCount.get(), 1);
+    }
+
+    @Test
+    public void testConstants() {
+        Map<String, String> data = new HashMap<>();
+        data.put("plain", "Current figures");
+        data.put("braces", "Current {1} figures");
+        data.put("quotes", "It''s '{braces}' and ''quotes''");
+        data.put("argument", "Hello $1, it's me");
+        IntuitionResourceBundle bundle = new IntuitionResourceBundle(data);
+        Map<String, String> constants = bundle.getConstants();
+        Assert.assertSame(constants.get("plain"),
+                bundle.getPatterns().get("plain"));
+        Assert.assertSame(constants.get("braces"),
+                bundle.getPatterns().get("braces"));
+        Assert.assertEquals(constants.get("quotes"),
+                "It's {braces} and 'quotes'");
+        Assert.assertEquals(constants.get("quotes"),
+                MessageFormat.format(bundle.getString("quotes"),
+                        new Object[0]));
+        Assert.assertFalse(constants.containsKey("argument"));
+
+        // shared constants do not count twice: two bytes per char plus one
+        Map<String, String> plainData = new HashMap<>();
+        plainData.put("k", "0123456789");
+        Assert.assertEquals(
+                new IntuitionResourceBundle(plainData).getWeight(), 23);
+    }
+
+    @Test
+    public void testConstantsIntuition() throws Exception {
+        Map<String, String> rootData = new HashMap<>();
+        rootData.put("parent-only", "From the '{parent}'");
+        rootData.put("overridden", "No arguments");
+        Map<String, String> data = new HashMap<>();
+        data.put("quotes", "It''s me");
+        data.put("overridden", "Hello $1");
+        IntuitionCache.put("constants-test", "",
+                Optional.of(new IntuitionResourceBundle(rootData)));
+        IntuitionCache.put("constants-test", "en",
+                Optional.of(new IntuitionResourceBundle(data)));
+
+        Intuition intuition = new Intuition("constants-test", Locale.ENGLISH);
+        Assert.assertEquals(intuition.get("quotes"), "It's me");
+        Assert.assertEquals(intuition.get("parent-only"), "From the {parent}");
+        Assert.assertEquals(intuition.get("overridden", "you"), "Hello you");
+        try {
+            intuition.get("overridden");
+            Assert.fail();
+        } catch (IllegalArgumentException exception) {
+            // expected
+        }
+    }
+
     @Test
     public void testFormatting() {
         Intuition intuition = new Intuition(PB_GROUP, Locale.ENGLISH);
@@ -92,6 +278,91 @@ public class IntuitionTests {
         intuition.get("pb-test-test");
     }
 
+    @Test
+    public void testSnapshot() throws Exception {
+        Map<String, String> data = new HashMap<>();
+        data.put("plain", "Current figures");
+        data.put("quotes", "It''s me");
+        data.put("argument", "Hello $1, this is $2 \u2013 \u00e4\u00f6\u00fc");
+        IntuitionResourceBundle bundle = new IntuitionResourceBundle(data);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        IntuitionSnapshot.write(bundle, outputStream);
+        IntuitionResourceBundle snapshotBundle =
+                IntuitionSnapshot.read(new ByteArrayInputStream(outputStream
+                        .toByteArray()));
+        Assert.assertEquals(snapshotBundle.getPatterns(),
+                bundle.getPatterns());
+        Assert.assertEquals(snapshotBundle.getConstants(),
+                bundle.getConstants());
+        Assert.assertEquals(snapshotBundle.getConstants().get("quotes"),
+                "It's me");
+        Assert.assertSame(snapshotBundle.getConstants().get("plain"),
+                snapshotBundle.getPatterns().get("plain"));
+        Assert.assertEquals(snapshotBundle.getWeight(), bundle.getWeight());
+        Assert.assertEquals(snapshotBundle.getString("argument"),
+                "Hello {0}, this is {1} \u2013 \u00e4\u00f6\u00fc");
+    }
+
+    @Test
+    public void testSnapshotOffline() throws Exception {
+        String domain = "snapshot-offline-test";
+        File directory = temporaryFolder.getRoot();
+        Map<String, String> rootData = new HashMap<>();
+        rootData.put("fallback", "root value");
+        writeSnapshot(directory, domain, IntuitionSnapshot.ROOT_NAME,
+                rootData);
+        Map<String, String> data = new HashMap<>();
+        data.put("key", "value $1");
+        writeSnapshot(directory, domain, "en", data);
+        ClassLoader loader =
+                new URLClassLoader(new URL[] {directory.toURI().toURL()});
+
+        String intuitionUrl = IntuitionLoader.getIntuitionUrl();
+        // any request to the Intuition API fails immediately
+        IntuitionLoader.setIntuitionUrl(
+                "http://127.0.0.1:1/api.php?domains=%s&lang=%s");
+        try {
+            long missCount = IntuitionCache.getStats().missCount();
+            long exceptionCount =
+                    IntuitionCache.getStats().loadExceptionCount();
+            ResourceBundle bundle =
+                    ResourceBundle.getBundle(domain, Locale.US, loader,
+                            new IntuitionControl());
+            Assert.assertEquals(bundle.getLocale(), Locale.US);
+            Assert.assertEquals(bundle.getString("key"), "value {0}");
+            Assert.assertEquals(bundle.getString("fallback"), "root value");
+            // one load for en (shared by en_US) and one for the root bundle
+            Assert.assertEquals(IntuitionCache.getStats().missCount(),
+                    missCount + 2);
+            Assert.assertEquals(IntuitionCache.getStats()
+                    .loadExceptionCount(), exceptionCount);
+        } finally {
+            IntuitionLoader.setIntuitionUrl(intuitionUrl);
+        }
+    }
+
+    private static void writeSnapshot(final File directory,
+            final String domain, final String name,
+            final Map<String, String> data) throws IOException {
+        File file = new File(directory,
+                String.format(IntuitionSnapshot.RESOURCE_PATH, domain, name));
+        Files.createParentDirs(file);
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            IntuitionSnapshot.write(new IntuitionResourceBundle(data),
+                    outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Test
+    public void testSnapshotMissing() throws Exception {
+        Assert.assertFalse(IntuitionSnapshot.load(
+                getClass().getClassLoader(), "snapshot-test", "en")
+                .isPresent());
+    }
+
     @Test
     public void testResourceBundleDefault() {
         ResourceBundle bundle =